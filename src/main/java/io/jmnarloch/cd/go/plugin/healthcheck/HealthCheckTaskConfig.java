@@ -53,7 +53,25 @@ public enum HealthCheckTaskConfig {
      * The maximum timeout for awaiting the application to become healthy.
      */
     @ConfigProperty(defaultValue = "60", required = true)
-    TIMEOUT("Timeout");
+    TIMEOUT("Timeout"),
+
+    /**
+     * Whether to resolve the host into all of its addresses and check each of them.
+     */
+    @ConfigProperty(defaultValue = "false", required = false)
+    RESOLVE_ALL("ResolveAll"),
+
+    /**
+     * The minimal number of healthy addresses, zero requires all of them to be healthy.
+     */
+    @ConfigProperty(defaultValue = "0", required = false)
+    QUORUM("Quorum"),
+
+    /**
+     * The Server-Sent Events health stream url.
+     */
+    @ConfigProperty(defaultValue = "", required = false)
+    STREAM_URL("StreamUrl");
 
     /**
      * The property name.
@@ -16,28 +16,56 @@
 package io.jmnarloch.cd.go.plugin.healthcheck;
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.task.JobConsoleLogger;
+import io.jmnarloch.cd.go.plugin.api.exception.PluginException;
 import io.jmnarloch.cd.go.plugin.api.executor.ExecutionConfiguration;
 import io.jmnarloch.cd.go.plugin.api.executor.ExecutionContext;
 import io.jmnarloch.cd.go.plugin.api.executor.ExecutionResult;
 import io.jmnarloch.cd.go.plugin.api.executor.TaskExecutor;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.pipeline.PipelineConfigurators;
+import io.reactivex.netty.pipeline.ssl.SSLEngineFactory;
+import io.reactivex.netty.protocol.http.client.HttpClient;
+import io.reactivex.netty.protocol.http.client.HttpClientBuilder;
+import io.reactivex.netty.protocol.http.client.HttpClientRequest;
 import io.reactivex.netty.protocol.http.client.HttpClientResponse;
+import io.reactivex.netty.protocol.http.sse.ServerSentEvent;
 import org.apache.commons.lang3.StringUtils;
 import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The health check executor. The plugin will perform polling of the configured health url until it will receive
  * the first successful response matching the specific instance status. If the connection can not be establish or
  * the health check statuses will not match the expected value the pooling will be timeouted after configured number
- * of seconds and the step itself will result in build error.
+ * of seconds and the step itself will result in build error. Optionally the health url host can be resolved into all
+ * of its addresses, in which case each of them is checked and all, or the configured quorum, needs to be healthy.
+ * When the health stream url is configured the executor first subscribes to the Server-Sent Events stream and
+ * completes as soon as any event reports the expected status, falling back to polling if the stream drops.
  *
  * @author Jakub Narloch
  */
@@ -48,6 +76,21 @@ public class HealthCheckTaskExecutor implements TaskExecutor {
      */
     private static final String SEPARATOR = "\\.";
 
+    /**
+     * The secure HTTP scheme.
+     */
+    private static final String HTTPS = "https";
+
+    /**
+     * The endpoint identification algorithm verifying the certificate against the host name.
+     */
+    private static final String ENDPOINT_IDENTIFICATION = "HTTPS";
+
+    /**
+     * The Server-Sent Events content type.
+     */
+    private static final String EVENT_STREAM = "text/event-stream";
+
     /**
      * The logger used by this class.
      */
@@ -86,15 +129,36 @@ public class HealthCheckTaskExecutor implements TaskExecutor {
             final String status = getProperty(config, HealthCheckTaskConfig.STATUS);
             final int timeout = getIntProperty(config, HealthCheckTaskConfig.TIMEOUT, 60);
             final int retryDelay = getIntProperty(config, HealthCheckTaskConfig.DELAY, 15);
+            final boolean resolveAll = getBooleanProperty(config, HealthCheckTaskConfig.RESOLVE_ALL);
+            final int quorum = resolveAll ? getIntProperty(config, HealthCheckTaskConfig.QUORUM, 0) : 0;
+            final String streamUrl = getProperty(config, HealthCheckTaskConfig.STREAM_URL);
+
+            final URI healthCheckUri = new URI(healthCheckUrl);
+            if (resolveAll && StringUtils.isBlank(healthCheckUri.getHost())) {
+                return ExecutionResult.failure(String.format("Health check url host could not be parsed: %s",
+                        healthCheckUrl));
+            }
 
-            final boolean success = RxNetty.createHttpGet(healthCheckUrl)
-                    .flatMap(parseJsonElement())
-                    .map(mapStatusAttribute(attribute))
-                    .map(mapAttributeValue())
-                    .map(matchStatus(status))
+            final Observable<Boolean> healthCheck = resolveAll
+                    ? checkAllAddresses(healthCheckUri, attribute, status, quorum,
+                    requestTimeout(retryDelay, timeout), console)
+                    : checkStatus(RxNetty.createHttpGet(healthCheckUrl), attribute, status);
+
+            final Observable<Boolean> attempt = healthCheck
                     .filter(filterStatuses())
-                    .switchIfEmpty(Observable.<Boolean>error(null))
-                    .retryWhen(retryPolicy(retryDelay, timeout))
+                    .switchIfEmpty(Observable.<Boolean>error(null));
+
+            Observable<Boolean> polling = attempt
+                    .retryWhen(retryPolicy(retryDelay, timeout));
+
+            if (StringUtils.isNotBlank(streamUrl) && resolveAll) {
+                console.printLine("Health stream is skipped when checking all resolved addresses");
+            } else if (StringUtils.isNotBlank(streamUrl)) {
+                polling = streamStatus(streamUrl, attribute, status, attempt, retryDelay, timeout, console)
+                        .switchIfEmpty(polling);
+            }
+
+            final boolean success = polling
                     .timeout(timeout, TimeUnit.SECONDS)
                     .toBlocking()
                     .firstOrDefault(false);
@@ -111,6 +175,411 @@ public class HealthCheckTaskExecutor implements TaskExecutor {
         }
     }
 
+    /**
+     * Checks the application status returned in the HTTP response.
+     *
+     * @param responses the HTTP responses
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @return the observable emitting whether the status matches
+     */
+    private Observable<Boolean> checkStatus(Observable<HttpClientResponse<ByteBuf>> responses,
+                                            String attribute, String status) {
+        return responses
+                .flatMap(parseJsonElement())
+                .map(mapStatusAttribute(attribute))
+                .map(mapAttributeValue())
+                .map(matchStatus(status));
+    }
+
+    /**
+     * Subscribes to the Server-Sent Events health stream and awaits the first event matching the expected status.
+     * While the stream can not be connected to, for instance because the application is still starting, the single
+     * health check attempt is performed instead and the subscription is retried according to the retry policy. Once
+     * connected, if the stream drops, stays idle between events or completes without the application becoming
+     * healthy the observable completes empty.
+     *
+     * @param streamUrl the health stream url
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @param attempt the single health check attempt
+     * @param retryDelay the delay
+     * @param timeout the maximum timeout
+     * @param console the console logger
+     * @return the observable emitting the healthy status
+     */
+    private Observable<Boolean> streamStatus(String streamUrl, String attribute, String status,
+                                             Observable<Boolean> attempt, int retryDelay, int timeout,
+                                             final JobConsoleLogger console) {
+
+        final HttpClientRequest<ByteBuf> request = HttpClientRequest.<ByteBuf>createGet(streamUrl)
+                .withHeader(HttpHeaders.Names.ACCEPT, EVENT_STREAM);
+
+        return Observable.merge(
+                RxNetty.createHttpRequest(request, PipelineConfigurators.<ByteBuf>clientSseConfigurator())
+                        .flatMap(checkStreamResponse())
+                        .map(mapEvents(attribute, status, requestTimeout(retryDelay, timeout)))
+                        .onErrorResumeNext(attemptInstead(attempt, console))
+                        .retryWhen(retryPolicy(retryDelay, timeout)))
+                .take(1)
+                .switchIfEmpty(Observable.<Boolean>empty().doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        console.printLine("Health stream ended without healthy status, falling back to polling");
+                    }
+                }))
+                .onErrorResumeNext(new Func1<Throwable, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(Throwable throwable) {
+                        logger.debug("Health stream failed", throwable);
+                        console.printLine(String.format("Health stream failed: %s, falling back to polling",
+                                reason(throwable)));
+                        return Observable.empty();
+                    }
+                });
+    }
+
+    /**
+     * Performs the single health check attempt in place of the stream that could not be connected to.
+     *
+     * @param attempt the single health check attempt
+     * @param console the console logger
+     * @return the mapping function
+     */
+    private Func1<Throwable, Observable<Observable<Boolean>>> attemptInstead(final Observable<Boolean> attempt,
+                                                                            final JobConsoleLogger console) {
+        return new Func1<Throwable, Observable<Observable<Boolean>>>() {
+            @Override
+            public Observable<Observable<Boolean>> call(Throwable throwable) {
+                console.printLine(String.format("Health stream not available: %s", reason(throwable)));
+                return attempt.map(new Func1<Boolean, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(Boolean value) {
+                        return Observable.just(value);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Maps the Server-Sent Events response into the healthy statuses reported by its events.
+     *
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @param idleTimeout the maximum time in seconds between the events
+     * @return the mapping function
+     */
+    private Func1<HttpClientResponse<ServerSentEvent>, Observable<Boolean>> mapEvents(final String attribute,
+                                                                                     final String status,
+                                                                                     final int idleTimeout) {
+        return new Func1<HttpClientResponse<ServerSentEvent>, Observable<Boolean>>() {
+            @Override
+            public Observable<Boolean> call(HttpClientResponse<ServerSentEvent> response) {
+                return mapEventData(idleTimeout).call(response)
+                        .flatMap(matchEvent(attribute, status))
+                        .filter(filterStatuses());
+            }
+        };
+    }
+
+    /**
+     * Checks whether the Server-Sent Events response has been successful.
+     *
+     * @return the mapping function
+     */
+    private Func1<HttpClientResponse<ServerSentEvent>, Observable<HttpClientResponse<ServerSentEvent>>>
+            checkStreamResponse() {
+        return new Func1<HttpClientResponse<ServerSentEvent>, Observable<HttpClientResponse<ServerSentEvent>>>() {
+            @Override
+            public Observable<HttpClientResponse<ServerSentEvent>> call(HttpClientResponse<ServerSentEvent> response) {
+                if (response.getStatus().code() != HttpResponseStatus.OK.code()) {
+                    return Observable.error(new IllegalStateException(
+                            "Health stream responded with status " + response.getStatus()));
+                }
+                return Observable.just(response);
+            }
+        };
+    }
+
+    /**
+     * Maps the Server-Sent Events response into the data of each event, failing if no event is received within the
+     * idle timeout.
+     *
+     * @param idleTimeout the maximum time in seconds between the events
+     * @return the mapping function
+     */
+    private Func1<HttpClientResponse<ServerSentEvent>, Observable<String>> mapEventData(final int idleTimeout) {
+        return new Func1<HttpClientResponse<ServerSentEvent>, Observable<String>>() {
+            @Override
+            public Observable<String> call(HttpClientResponse<ServerSentEvent> response) {
+                return response.getContent()
+                        .timeout(idleTimeout, TimeUnit.SECONDS, Observable.<ServerSentEvent>error(
+                                new TimeoutException(String.format("no event received within %d seconds",
+                                        idleTimeout))))
+                        .map(new Func1<ServerSentEvent, String>() {
+                            @Override
+                            public String call(ServerSentEvent event) {
+                                return event.contentAsString();
+                            }
+                        })
+                        .filter(new Func1<String, Boolean>() {
+                            @Override
+                            public Boolean call(String data) {
+                                return StringUtils.isNotBlank(data);
+                            }
+                        });
+            }
+        };
+    }
+
+    /**
+     * Matches the single event against the expected status. The events that are not JSON or do not contain the
+     * status attribute, like heartbeats, are skipped without terminating the stream.
+     *
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @return the mapping function
+     */
+    private Func1<String, Observable<Boolean>> matchEvent(final String attribute, final String status) {
+        final Func1<JsonElement, JsonElement> statusAttribute = mapStatusAttribute(attribute);
+        final Func1<JsonElement, String> attributeValue = mapAttributeValue();
+        final Func1<String, Boolean> statusMatcher = matchStatus(status);
+
+        return new Func1<String, Observable<Boolean>>() {
+            @Override
+            public Observable<Boolean> call(String data) {
+                try {
+                    final JsonElement element = statusAttribute.call(parser.parse(data));
+                    if (element == null || !element.isJsonPrimitive()) {
+                        logger.debug("Skipping health event without status attribute: " + data);
+                        return Observable.empty();
+                    }
+                    return Observable.just(statusMatcher.call(attributeValue.call(element)));
+                } catch (JsonParseException e) {
+                    logger.debug("Skipping health event that could not be parsed: " + data, e);
+                    return Observable.empty();
+                }
+            }
+        };
+    }
+
+    /**
+     * Resolves the health url host into all of its addresses and checks each of them in parallel. The host is
+     * resolved on subscription, so that a failed resolution is retried, and once it resolves into enough addresses
+     * to reach the quorum the retries are reusing the same addresses.
+     *
+     * @param uri the health url
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @param quorum the minimal number of healthy addresses, zero requires all of them
+     * @param requestTimeout the timeout in seconds of the single address request
+     * @param console the console logger
+     * @return the observable emitting whether the quorum has been reached
+     */
+    private Observable<Boolean> checkAllAddresses(final URI uri, final String attribute, final String status,
+                                                  final int quorum, final int requestTimeout,
+                                                  final JobConsoleLogger console) {
+
+        final AtomicReference<InetAddress[]> resolved = new AtomicReference<>();
+        return Observable.defer(new Func0<Observable<Boolean>>() {
+            @Override
+            public Observable<Boolean> call() {
+                InetAddress[] addresses = resolved.get();
+                if (addresses == null) {
+                    try {
+                        addresses = InetAddress.getAllByName(uri.getHost());
+                    } catch (UnknownHostException e) {
+                        console.printLine(String.format("Could not resolve %s", uri.getHost()));
+                        return Observable.error(e);
+                    }
+                    if (quorum <= addresses.length) {
+                        resolved.set(addresses);
+                    }
+                    console.printLine(String.format("Resolved %s into %d address(es)",
+                            uri.getHost(), addresses.length));
+                }
+                return checkAddresses(uri, addresses, attribute, status, quorum, requestTimeout, console);
+            }
+        });
+    }
+
+    /**
+     * Checks each of the addresses in parallel, completing as soon as the required number of them is healthy.
+     * If there are fewer addresses than the quorum, the check fails without sending any request.
+     *
+     * @param uri the health url
+     * @param addresses the addresses
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @param quorum the minimal number of healthy addresses, zero requires all of them
+     * @param requestTimeout the timeout in seconds of the single address request
+     * @param console the console logger
+     * @return the observable emitting whether the quorum has been reached
+     */
+    Observable<Boolean> checkAddresses(URI uri, InetAddress[] addresses, String attribute, String status,
+                                       int quorum, int requestTimeout, JobConsoleLogger console) {
+
+        if (quorum > addresses.length) {
+            console.printLine(String.format("Quorum of %d can not be reached with %d address(es)",
+                    quorum, addresses.length));
+            return Observable.just(false);
+        }
+
+        final List<Observable<Boolean>> checks = new ArrayList<>(addresses.length);
+        for (InetAddress address : addresses) {
+            checks.add(checkAddress(uri, address, attribute, status, requestTimeout, console));
+        }
+
+        final int required = quorum > 0 ? quorum : addresses.length;
+        return Observable.merge(checks)
+                .filter(filterStatuses())
+                .take(required)
+                .count()
+                .map(matchQuorum(required));
+    }
+
+    /**
+     * Checks the application status on the single address, sending the original host header.
+     *
+     * @param uri the health url
+     * @param address the address
+     * @param attribute the attribute name
+     * @param status the expected status
+     * @param requestTimeout the request timeout in seconds
+     * @param console the console logger
+     * @return the observable emitting whether the status matches
+     */
+    private Observable<Boolean> checkAddress(final URI uri, final InetAddress address,
+                                             final String attribute, final String status,
+                                             final int requestTimeout, final JobConsoleLogger console) {
+        return Observable.using(
+                new Func0<HttpClient<ByteBuf, ByteBuf>>() {
+                    @Override
+                    public HttpClient<ByteBuf, ByteBuf> call() {
+                        return createHttpClient(uri, address);
+                    }
+                },
+                new Func1<HttpClient<ByteBuf, ByteBuf>, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(HttpClient<ByteBuf, ByteBuf> client) {
+                        final HttpClientRequest<ByteBuf> request = HttpClientRequest.createGet(requestUri(uri))
+                                .withHeader(HttpHeaders.Names.HOST, hostHeader(uri));
+
+                        return checkStatus(client.submit(request), attribute, status)
+                                .firstOrDefault(false)
+                                .timeout(requestTimeout, TimeUnit.SECONDS)
+                                .doOnNext(printAddressStatus(address, console))
+                                .onErrorReturn(failedStatus(address, console));
+                    }
+                },
+                new Action1<HttpClient<ByteBuf, ByteBuf>>() {
+                    @Override
+                    public void call(HttpClient<ByteBuf, ByteBuf> client) {
+                        client.shutdown();
+                    }
+                });
+    }
+
+    /**
+     * Creates the HTTP client connecting to the specific address.
+     *
+     * @param uri the health url
+     * @param address the address
+     * @return the HTTP client
+     */
+    private HttpClient<ByteBuf, ByteBuf> createHttpClient(URI uri, InetAddress address) {
+        final boolean secure = HTTPS.equalsIgnoreCase(uri.getScheme());
+        final HttpClientBuilder<ByteBuf, ByteBuf> builder =
+                RxNetty.<ByteBuf, ByteBuf>newHttpClientBuilder(address.getHostAddress(), port(uri));
+        if (secure) {
+            builder.withSslEngineFactory(sslEngineFactory(uri));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates the SSL engine factory using the JDK default trust store. Since the connection is established to the
+     * resolved address, the engine is given the url host as the peer host, so that it's used for SNI and the
+     * certificate is verified against it.
+     *
+     * @param uri the health url
+     * @return the SSL engine factory
+     */
+    private SSLEngineFactory sslEngineFactory(final URI uri) {
+        final SSLContext sslContext;
+        try {
+            sslContext = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new PluginException("The default SSL context could not be created.", e);
+        }
+
+        return new SSLEngineFactory() {
+            @Override
+            public SSLEngine createSSLEngine(ByteBufAllocator allocator) {
+                final SSLEngine engine = sslContext.createSSLEngine(uri.getHost(), port(uri));
+                engine.setUseClientMode(true);
+
+                final SSLParameters parameters = engine.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm(ENDPOINT_IDENTIFICATION);
+                engine.setSSLParameters(parameters);
+                return engine;
+            }
+        };
+    }
+
+    /**
+     * Prints the status of the single address.
+     *
+     * @param address the address
+     * @param console the console logger
+     * @return the action
+     */
+    private Action1<Boolean> printAddressStatus(final InetAddress address, final JobConsoleLogger console) {
+        return new Action1<Boolean>() {
+            @Override
+            public void call(Boolean healthy) {
+                console.printLine(String.format(Boolean.TRUE.equals(healthy)
+                        ? "Address %s is healthy" : "Address %s did not report the expected status",
+                        address.getHostAddress()));
+            }
+        };
+    }
+
+    /**
+     * Maps the failed request into unhealthy status, printing the failure reason.
+     *
+     * @param address the address
+     * @param console the console logger
+     * @return the mapping function
+     */
+    private Func1<Throwable, Boolean> failedStatus(final InetAddress address, final JobConsoleLogger console) {
+        return new Func1<Throwable, Boolean>() {
+            @Override
+            public Boolean call(Throwable throwable) {
+                logger.debug("Health check request failed", throwable);
+                console.printLine(String.format("Address %s failed: %s", address.getHostAddress(),
+                        reason(throwable)));
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Matches the number of healthy addresses against the required quorum.
+     *
+     * @param required the required number of healthy addresses
+     * @return the mapping function
+     */
+    private Func1<Integer, Boolean> matchQuorum(final int required) {
+        return new Func1<Integer, Boolean>() {
+            @Override
+            public Boolean call(Integer healthy) {
+                return healthy >= required;
+            }
+        };
+    }
+
     /**
      * Maps the HTTP response and unmarshalls it's JSON payload.
      *
@@ -131,7 +600,7 @@ public class HealthCheckTaskExecutor implements TaskExecutor {
     }
 
     /**
-     * Maps the attribute that indicates the instance status.
+     * Maps the attribute that indicates the instance status, or {@code null} if the attribute is missing.
      *
      * @param attribute the attribute name
      * @return the mapping function
@@ -143,6 +612,9 @@ public class HealthCheckTaskExecutor implements TaskExecutor {
                 JsonElement element = jsonElement;
                 final String[] parts = attribute.split(SEPARATOR);
                 for(String part : parts) {
+                    if (element == null || !element.isJsonObject()) {
+                        return null;
+                    }
                     element = element.getAsJsonObject().get(part);
                 }
                 return element;
@@ -211,6 +683,73 @@ public class HealthCheckTaskExecutor implements TaskExecutor {
         };
     }
 
+    /**
+     * Retrieves the failure reason, falling back to the exception type if it has no message.
+     *
+     * @param throwable the failure
+     * @return the failure reason
+     */
+    private static String reason(Throwable throwable) {
+        return StringUtils.defaultString(throwable.getMessage(), throwable.toString());
+    }
+
+    /**
+     * Retrieves the timeout of the single address request, so that an unresponsive address does not hold the
+     * attempt longer than the delay between the retries.
+     *
+     * @param retryDelay the delay
+     * @param timeout the maximum timeout
+     * @return the request timeout in seconds
+     */
+    private static int requestTimeout(int retryDelay, int timeout) {
+        return retryDelay > 0 && retryDelay < timeout ? retryDelay : timeout;
+    }
+
+    /**
+     * Retrieves the request uri, consisting of the url path and query.
+     *
+     * @param uri the url
+     * @return the request uri
+     */
+    private static String requestUri(URI uri) {
+        final String path = StringUtils.defaultIfEmpty(uri.getRawPath(), "/");
+        return uri.getRawQuery() != null ? path + "?" + uri.getRawQuery() : path;
+    }
+
+    /**
+     * Retrieves the host header value.
+     *
+     * @param uri the url
+     * @return the host header
+     */
+    private static String hostHeader(URI uri) {
+        return uri.getPort() != -1 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+    }
+
+    /**
+     * Retrieves the url port, falling back to the scheme default.
+     *
+     * @param uri the url
+     * @return the port
+     */
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return HTTPS.equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Retrieves the boolean property value.
+     *
+     * @param config the configuration
+     * @param property the property name
+     * @return the property value
+     */
+    private boolean getBooleanProperty(ExecutionConfiguration config, HealthCheckTaskConfig property) {
+        return Boolean.parseBoolean(getProperty(config, property));
+    }
+
     /**
      * Retrieves the integer property value.
      *
@@ -19,6 +19,8 @@ import io.jmnarloch.cd.go.plugin.api.validation.AbstractTaskValidator;
 import io.jmnarloch.cd.go.plugin.api.validation.ValidationErrors;
 import org.apache.commons.lang3.StringUtils;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Map;
 
 /**
@@ -37,6 +39,15 @@ public class HealthCheckTaskValidator extends AbstractTaskValidator {
         rejectIfEmpty(properties, errors, HealthCheckTaskConfig.URL.getName(), "Url must be specified");
         rejectIfEmpty(properties, errors, HealthCheckTaskConfig.ATTRIBUTE.getName(), "Attribute must be specified");
         rejectIfEmpty(properties, errors, HealthCheckTaskConfig.STATUS.getName(), "Status must be specified");
+
+        if (Boolean.parseBoolean(getProperty(properties, HealthCheckTaskConfig.RESOLVE_ALL.getName()))) {
+            rejectIfNoHost(properties, errors, HealthCheckTaskConfig.URL.getName(),
+                    "Url must contain a valid host to check all resolved addresses");
+            rejectIfNotNonNegative(properties, errors, HealthCheckTaskConfig.QUORUM.getName(),
+                    "Quorum must be a non-negative number");
+            rejectIfNotEmpty(properties, errors, HealthCheckTaskConfig.STREAM_URL.getName(),
+                    "Stream Url can not be used when checking all resolved addresses");
+        }
     }
 
     /**
@@ -52,4 +63,61 @@ public class HealthCheckTaskValidator extends AbstractTaskValidator {
             errors.addError(name, message);
         }
     }
+
+    /**
+     * Rejects the url if its host can not be parsed.
+     *
+     * @param properties the properties
+     * @param errors     the validation errors
+     * @param name       the property name
+     * @param message    the message
+     */
+    private void rejectIfNoHost(Map<String, Object> properties, ValidationErrors errors, String name,
+                                String message) {
+        final String value = getProperty(properties, name);
+        if(StringUtils.isBlank(value)) {
+            return;
+        }
+        try {
+            if(StringUtils.isBlank(new URI(value).getHost())) {
+                errors.addError(name, message);
+            }
+        } catch (URISyntaxException e) {
+            errors.addError(name, message);
+        }
+    }
+
+    /**
+     * Rejects the value if it's not empty.
+     *
+     * @param properties the properties
+     * @param errors     the validation errors
+     * @param name       the property name
+     * @param message    the message
+     */
+    private void rejectIfNotEmpty(Map<String, Object> properties, ValidationErrors errors, String name,
+                                  String message) {
+        if(StringUtils.isNotBlank(getProperty(properties, name))) {
+            errors.addError(name, message);
+        }
+    }
+
+    /**
+     * Rejects the value if it's not a non-negative integer.
+     *
+     * @param properties the properties
+     * @param errors     the validation errors
+     * @param name       the property name
+     * @param message    the message
+     */
+    private void rejectIfNotNonNegative(Map<String, Object> properties, ValidationErrors errors, String name,
+                                        String message) {
+        try {
+            if (Integer.parseInt(getProperty(properties, name)) < 0) {
+                errors.addError(name, message);
+            }
+        } catch (NumberFormatException e) {
+            errors.addError(name, message);
+        }
+    }
 }
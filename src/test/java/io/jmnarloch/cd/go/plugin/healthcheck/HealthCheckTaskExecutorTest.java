@@ -20,6 +20,7 @@ import io.jmnarloch.cd.go.plugin.api.executor.ExecutionConfiguration;
 import io.jmnarloch.cd.go.plugin.api.executor.ExecutionContext;
 import io.jmnarloch.cd.go.plugin.api.executor.ExecutionResult;
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.reactivex.netty.RxNetty;
 import io.reactivex.netty.protocol.http.server.HttpServer;
@@ -31,12 +32,20 @@ import org.junit.Before;
 import org.junit.Test;
 import rx.Observable;
 
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * Tests the HealthCheckTaskExecutor.
@@ -50,6 +59,16 @@ public class HealthCheckTaskExecutorTest {
      */
     private static final int PORT = 18080;
 
+    /**
+     * The loopback address, serving the healthy application.
+     */
+    private static final String LOOPBACK = "127.0.0.1";
+
+    /**
+     * The address reserved for documentation, that is never reachable.
+     */
+    private static final String UNREACHABLE = "192.0.2.1";
+
     /**
      * The instance of tested class.
      */
@@ -60,6 +79,16 @@ public class HealthCheckTaskExecutorTest {
      */
     private HttpServer<ByteBuf, ByteBuf> server;
 
+    /**
+     * The host header of the last health request.
+     */
+    private volatile String hostHeader;
+
+    /**
+     * The number of requests to the delayed health stream.
+     */
+    private final AtomicInteger streamRequests = new AtomicInteger();
+
     /**
      * Setups the test environment.
      *
@@ -75,7 +104,30 @@ public class HealthCheckTaskExecutorTest {
             public Observable<Void> handle(HttpServerRequest<ByteBuf> request, HttpServerResponse<ByteBuf> response) {
                 if ("/health".equals(request.getPath())) {
 
+                    hostHeader = request.getHeaders().get(HttpHeaders.Names.HOST);
                     return response.writeStringAndFlush("{\"status\": \"UP\", \"service\": {\"status\": \"UP\"}}");
+                } else if ("/health/stream".equals(request.getPath())) {
+
+                    response.getHeaders().set(HttpHeaders.Names.CONTENT_TYPE, "text/event-stream");
+                    return response.writeStringAndFlush("data: {\"status\": \"STARTING\"}\n\n"
+                            + "data: ping\n\n"
+                            + "data: {\"uptime\": 1}\n\n"
+                            + "data: {\"status\": \"UP\"}\n\n");
+                } else if ("/health/stream/stalled".equals(request.getPath())) {
+
+                    response.getHeaders().set(HttpHeaders.Names.CONTENT_TYPE, "text/event-stream");
+                    return response.writeStringAndFlush("data: {\"status\": \"STARTING\"}\n\n")
+                            .concatWith(Observable.<Void>never());
+                } else if ("/health/stream/delayed".equals(request.getPath())
+                        && streamRequests.incrementAndGet() > 1) {
+
+                    response.getHeaders().set(HttpHeaders.Names.CONTENT_TYPE, "text/event-stream");
+                    return response.writeStringAndFlush("data: {\"status\": \"UP\"}\n\n");
+                } else if ("/health/stream/starting".equals(request.getPath())) {
+
+                    response.getHeaders().set(HttpHeaders.Names.CONTENT_TYPE, "text/event-stream");
+                    return response.writeStringAndFlush("data: {\"status\": \"STARTING\"}\n\n"
+                            + "data: {\"status\": \"STARTING\"}\n\n");
                 }
                 response.setStatus(HttpResponseStatus.NOT_FOUND);
                 return response.close();
@@ -170,6 +222,273 @@ public class HealthCheckTaskExecutorTest {
         assertFalse(result.isSuccess());
     }
 
+    /**
+     * Tests whether the health check succeeds when checking all resolved addresses.
+     */
+    @Test
+    public void shouldSuccessResolvingAllAddresses() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/health"), "status", "UP", 15, 30, true, 1);
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+    }
+
+    /**
+     * Tests the timeout and failure of the task on incorrect status when checking all resolved addresses.
+     */
+    @Test
+    public void shouldTimeoutStatusResolvingAllAddresses() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/health"), "status", "OK", 15, 30, true, 0);
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertFalse(result.isSuccess());
+    }
+
+    /**
+     * Tests whether the quorum is reached despite the unreachable address.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void shouldReachQuorumWithUnhealthyAddress() throws Exception {
+
+        // given
+        final InetAddress[] addresses = addresses(LOOPBACK, LOOPBACK, UNREACHABLE);
+
+        // when
+        boolean result = instance.checkAddresses(new URI(url("/health")), addresses, "status", "UP", 2, 1,
+                mock(JobConsoleLogger.class))
+                .toBlocking()
+                .single();
+
+        // then
+        assertTrue(result);
+    }
+
+    /**
+     * Tests whether requiring all addresses fails when one of them is unreachable.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void shouldFailAllAddressesWithUnhealthyAddress() throws Exception {
+
+        // given
+        final InetAddress[] addresses = addresses(LOOPBACK, LOOPBACK, UNREACHABLE);
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        boolean result = instance.checkAddresses(new URI(url("/health")), addresses, "status", "UP", 0, 1, logger)
+                .toBlocking()
+                .single();
+
+        // then
+        assertFalse(result);
+        verify(logger, times(2)).printLine("Address 127.0.0.1 is healthy");
+        verify(logger).printLine(startsWith("Address 192.0.2.1 failed: "));
+    }
+
+    /**
+     * Tests whether the quorum above the number of addresses fails, even if all of them are healthy.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void shouldFailQuorumAboveAddressCount() throws Exception {
+
+        // given
+        final InetAddress[] addresses = addresses(LOOPBACK, LOOPBACK);
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        boolean result = instance.checkAddresses(new URI(url("/health")), addresses, "status", "UP", 3, 1, logger)
+                .toBlocking()
+                .single();
+
+        // then
+        assertFalse(result);
+        verify(logger).printLine("Quorum of 3 can not be reached with 2 address(es)");
+    }
+
+    /**
+     * Tests whether checking all resolved addresses fails on the url host that can not be parsed.
+     */
+    @Test
+    public void shouldFailResolvingUnparsableHost() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(
+                String.format("http://health_service:%d/health", PORT), "status", "UP", 15, 30, true, 0);
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertFalse(result.isSuccess());
+        verify(logger, never()).printLine(startsWith("Resolved"));
+    }
+
+    /**
+     * Tests whether the original host header is sent to the resolved address.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void shouldSendOriginalHostHeader() throws Exception {
+
+        // given
+        final URI uri = new URI(String.format("http://health.example.com:%d/health", PORT));
+        final InetAddress[] addresses = addresses(LOOPBACK);
+
+        // when
+        boolean result = instance.checkAddresses(uri, addresses, "status", "UP", 0, 1,
+                mock(JobConsoleLogger.class))
+                .toBlocking()
+                .single();
+
+        // then
+        assertTrue(result);
+        assertEquals(String.format("health.example.com:%d", PORT), hostHeader);
+    }
+
+    /**
+     * Tests whether the health check succeeds on the health stream event, skipping the events that can not be
+     * matched.
+     */
+    @Test
+    public void shouldSuccessStreaming() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/"), "status", "UP", 15, 30,
+                url("/health/stream"));
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+    }
+
+    /**
+     * Tests whether the health check falls back to polling when the health stream is not available.
+     */
+    @Test
+    public void shouldFallbackToPolling() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/health"), "status", "UP", 15, 30,
+                url("/"));
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+    }
+
+    /**
+     * Tests whether the subscription to the health stream is retried until the stream becomes available.
+     */
+    @Test
+    public void shouldRetryStreamUntilAvailable() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/"), "status", "UP", 1, 30,
+                url("/health/stream/delayed"));
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+        assertEquals(2, streamRequests.get());
+    }
+
+    /**
+     * Tests whether the health check falls back to polling when the health stream ends without healthy status.
+     */
+    @Test
+    public void shouldFallbackToPollingWhenStreamEnds() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/health"), "status", "UP", 15, 30,
+                url("/health/stream/starting"));
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+        verify(logger).printLine("Health stream ended without healthy status, falling back to polling");
+    }
+
+    /**
+     * Tests whether the health check falls back to polling when the health stream stays idle.
+     */
+    @Test
+    public void shouldFallbackToPollingWhenStreamIdle() {
+
+        // given
+        final ExecutionContext context = new ExecutionContext(new HashMap());
+        final ExecutionConfiguration configuration = configuration(url("/health"), "status", "UP", 1, 30,
+                url("/health/stream/stalled"));
+        final JobConsoleLogger logger = mock(JobConsoleLogger.class);
+
+        // when
+        ExecutionResult result = instance.execute(context, configuration, logger);
+
+        // then
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+        verify(logger).printLine("Health stream failed: no event received within 1 seconds, falling back to polling");
+    }
+
+    /**
+     * Creates the addresses from the IP literals.
+     *
+     * @param ips the IP literals
+     * @return the addresses
+     * @throws UnknownHostException if any of the literals is invalid
+     */
+    private InetAddress[] addresses(String... ips) throws UnknownHostException {
+        final InetAddress[] addresses = new InetAddress[ips.length];
+        for (int index = 0; index < ips.length; index++) {
+            addresses[index] = InetAddress.getByName(ips[index]);
+        }
+        return addresses;
+    }
+
     /**
      * Builds the url for testing purpose.
      *
@@ -192,13 +511,68 @@ public class HealthCheckTaskExecutorTest {
      */
     private ExecutionConfiguration configuration(String url, String attribute, String status, int delay, int timeout) {
 
+        return new ExecutionConfiguration(properties(url, attribute, status, delay, timeout));
+    }
+
+    /**
+     * Creates the configuration for executing the task against all resolved addresses.
+     *
+     * @param url the health url
+     * @param attribute the attribute name
+     * @param status the attribute value
+     * @param delay the delay in seconds
+     * @param timeout the timeout in seconds
+     * @param resolveAll whether to check all resolved addresses
+     * @param quorum the minimal number of healthy addresses
+     * @return the created configuration
+     */
+    private ExecutionConfiguration configuration(String url, String attribute, String status, int delay, int timeout,
+                                                 boolean resolveAll, int quorum) {
+
+        final Map<String, Object> configuration = properties(url, attribute, status, delay, timeout);
+        addProperty(configuration, "ResolveAll", String.valueOf(resolveAll));
+        addProperty(configuration, "Quorum", String.valueOf(quorum));
+        return new ExecutionConfiguration(configuration);
+    }
+
+    /**
+     * Creates the configuration for executing the task with the health stream.
+     *
+     * @param url the health url
+     * @param attribute the attribute name
+     * @param status the attribute value
+     * @param delay the delay in seconds
+     * @param timeout the timeout in seconds
+     * @param streamUrl the health stream url
+     * @return the created configuration
+     */
+    private ExecutionConfiguration configuration(String url, String attribute, String status, int delay, int timeout,
+                                                 String streamUrl) {
+
+        final Map<String, Object> configuration = properties(url, attribute, status, delay, timeout);
+        addProperty(configuration, "StreamUrl", streamUrl);
+        return new ExecutionConfiguration(configuration);
+    }
+
+    /**
+     * Creates the common task properties.
+     *
+     * @param url the health url
+     * @param attribute the attribute name
+     * @param status the attribute value
+     * @param delay the delay in seconds
+     * @param timeout the timeout in seconds
+     * @return the created properties
+     */
+    private Map<String, Object> properties(String url, String attribute, String status, int delay, int timeout) {
+
         final Map<String, Object> configuration = new HashMap<>();
         addProperty(configuration, "Url", url);
         addProperty(configuration, "Attribute", attribute);
         addProperty(configuration, "Status", status);
         addProperty(configuration, "Delay", String.valueOf(delay));
         addProperty(configuration, "Timeout", String.valueOf(timeout));
-        return new ExecutionConfiguration(configuration);
+        return configuration;
     }
 
     /**